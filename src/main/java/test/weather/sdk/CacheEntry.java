@@ -2,17 +2,36 @@ package test.weather.sdk;
 
 /**
  * Элемент кэша: хранит данные и временную метку.
+ * Обновляется на месте, чтобы обновление кэша не создавало новых объектов.
  */
 public class CacheEntry {
-    public final WeatherResponse response;
-    public final long timestampSeconds; // время получения в секундах
+    public static final long TTL_MILLIS = 600_000; // 10 минут
 
-    public CacheEntry(WeatherResponse response, long timestampSeconds) {
+    public volatile WeatherResponse response;
+    public volatile long timestampMillis; // время получения в миллисекундах
+
+    public CacheEntry(WeatherResponse response, long timestampMillis) {
+        this.response = response;
+        this.timestampMillis = timestampMillis;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis - timestampMillis >= TTL_MILLIS;
+    }
+
+    /**
+     * Замена данных на месте. Метка пишется последней, поэтому читатель,
+     * увидевший свежую метку, увидит и свежие данные.
+     */
+    public void refresh(WeatherResponse response, long timestampMillis) {
         this.response = response;
-        this.timestampSeconds = timestampSeconds;
+        this.timestampMillis = timestampMillis;
     }
 
-    public boolean isExpired() {
-        return (System.currentTimeMillis() / 1000 - timestampSeconds) >= 600; // 10 минут
+    /**
+     * Обновление только временной метки, без замены данных.
+     */
+    public void touch(long timestampMillis) {
+        this.timestampMillis = timestampMillis;
     }
 }
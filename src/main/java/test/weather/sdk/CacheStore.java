@@ -0,0 +1,63 @@
+package test.weather.sdk;
+
+import java.util.Set;
+
+/**
+ * Хранилище кэша погоды. Позволяет подменить локальный кэш общим хранилищем,
+ * чтобы несколько экземпляров SDK не запрашивали API по одним и тем же городам.
+ */
+public interface CacheStore {
+
+    /**
+     * Элемент кэша для города или null, если его нет.
+     */
+    CacheEntry get(String city);
+
+    /**
+     * Сохраняет свежие данные для города.
+     *
+     * @return true, если данные попали в хранилище (для общего хранилища — записаны в него)
+     */
+    boolean put(String city, WeatherResponse response, long timestampMillis);
+
+    /**
+     * Обновляет данные города, только если он ещё есть в кэше, — вытесненный город не возвращается.
+     *
+     * @return true, если данные попали в хранилище
+     */
+    boolean refreshIfPresent(String city, WeatherResponse response, long timestampMillis);
+
+    /**
+     * Перечитывает город из хранилища, если там есть данные свежее локальной копии, —
+     * так узел без аренды получает результат узла-арендатора.
+     */
+    void reload(String city);
+
+    void remove(String city);
+
+    /**
+     * Города, закэшированные этим экземпляром SDK.
+     */
+    Set<String> cities();
+
+    int size();
+
+    /**
+     * Разделяются ли аренды между процессами. Если нет, аренды не продлеваются.
+     */
+    boolean sharesLeases();
+
+    /**
+     * Пытается взять аренду на обновление города. Пока аренда действует, остальные
+     * узлы не обращаются к API за этим городом и читают результат из хранилища.
+     *
+     * @return true, если обновлять город должен вызывающий узел
+     */
+    boolean tryAcquireRefreshLease(String city, long leaseMillis);
+
+    /**
+     * Освобождает аренду, если она принадлежит вызывающему узлу, — например, после
+     * неудачного запроса, чтобы другие узлы не ждали её истечения.
+     */
+    void releaseRefreshLease(String city);
+}
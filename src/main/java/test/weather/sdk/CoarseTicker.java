@@ -0,0 +1,36 @@
+package test.weather.sdk;
+
+/**
+ * Грубые часы: общий фоновый поток раз в {@link #RESOLUTION_MS} мс записывает текущее время
+ * в volatile-поле. Точности достаточно для TTL кэша в 10 минут.
+ */
+final class CoarseTicker implements Ticker, Runnable {
+    static final CoarseTicker INSTANCE = new CoarseTicker();
+    private static final long RESOLUTION_MS = 100;
+
+    private volatile long nowMillis = System.currentTimeMillis();
+
+    private CoarseTicker() {
+        Thread thread = new Thread(this, "WeatherSDK-CoarseClock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return nowMillis;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(RESOLUTION_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            nowMillis = System.currentTimeMillis();
+        }
+    }
+}
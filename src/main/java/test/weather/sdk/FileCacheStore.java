@@ -0,0 +1,238 @@
+package test.weather.sdk;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Общий кэш для нескольких процессов через каталог на общей файловой системе.
+ * Данные города лежат в отдельном JSON-файле и заменяются атомарным переименованием,
+ * а аренды на обновление хранятся в файлах, защищённых межпроцессной блокировкой.
+ * <p>
+ * Каждый узел держит локальную копию записей и перечитывает файл, только когда копия истекла.
+ * Удаление и вытеснение затрагивают лишь локальное представление узла. Сроки аренды
+ * сравниваются по часам узлов, поэтому часы в кластере должны быть синхронизированы.
+ */
+public class FileCacheStore implements CacheStore {
+    private static final Logger log = LoggerFactory.getLogger(FileCacheStore.class);
+    // Файловые блокировки принадлежат JVM целиком, поэтому потоки одной JVM синхронизируются отдельно
+    private static final Object[] LEASE_STRIPES = new Object[64];
+
+    static {
+        for (int i = 0; i < LEASE_STRIPES.length; i++) {
+            LEASE_STRIPES[i] = new Object();
+        }
+    }
+
+    private final Path directory;
+    private final Ticker ticker;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, CacheEntry> local = new ConcurrentHashMap<>();
+
+    private record StoredEntry(long timestampMillis, WeatherResponse response) {
+    }
+
+    public FileCacheStore(Path directory, Ticker ticker) {
+        this.directory = directory;
+        this.ticker = ticker;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Не удалось создать каталог кэша " + directory, e);
+        }
+    }
+
+    @Override
+    public CacheEntry get(String city) {
+        CacheEntry entry = local.get(city);
+        if (entry != null && !entry.isExpired(ticker.currentTimeMillis())) {
+            return entry;
+        }
+        StoredEntry stored = read(city);
+        if (stored == null) {
+            return entry;
+        }
+        if (entry == null) {
+            entry = new CacheEntry(stored.response(), stored.timestampMillis());
+            CacheEntry existing = local.putIfAbsent(city, entry);
+            return existing != null ? existing : entry;
+        }
+        if (stored.timestampMillis() > entry.timestampMillis) {
+            entry.refresh(stored.response(), stored.timestampMillis());
+        }
+        return entry;
+    }
+
+    @Override
+    public boolean put(String city, WeatherResponse response, long timestampMillis) {
+        putLocal(city, response, timestampMillis);
+        return write(city, new StoredEntry(timestampMillis, response));
+    }
+
+    private void putLocal(String city, WeatherResponse response, long timestampMillis) {
+        // Обновление на месте без аллокаций; compute — только при промахе или
+        // если запись вытеснили между get и refresh
+        CacheEntry entry = local.get(city);
+        if (entry != null) {
+            entry.refresh(response, timestampMillis);
+            if (local.get(city) == entry) {
+                return;
+            }
+        }
+        local.compute(city, (key, current) -> {
+            if (current == null) {
+                return new CacheEntry(response, timestampMillis);
+            }
+            current.refresh(response, timestampMillis);
+            return current;
+        });
+    }
+
+    /**
+     * Результат записывается в общий файл в любом случае, чтобы запрос к API не пропал для других узлов.
+     */
+    @Override
+    public boolean refreshIfPresent(String city, WeatherResponse response, long timestampMillis) {
+        boolean written = write(city, new StoredEntry(timestampMillis, response));
+        CacheEntry entry = local.get(city);
+        if (entry != null) {
+            entry.refresh(response, timestampMillis);
+        }
+        return written;
+    }
+
+    @Override
+    public void reload(String city) {
+        CacheEntry entry = local.get(city);
+        StoredEntry stored = read(city);
+        if (entry != null && stored != null && stored.timestampMillis() > entry.timestampMillis) {
+            entry.refresh(stored.response(), stored.timestampMillis());
+        }
+    }
+
+    @Override
+    public void remove(String city) {
+        local.remove(city);
+    }
+
+    @Override
+    public Set<String> cities() {
+        return local.keySet();
+    }
+
+    @Override
+    public int size() {
+        return local.size();
+    }
+
+    @Override
+    public boolean sharesLeases() {
+        return true;
+    }
+
+    @Override
+    public boolean tryAcquireRefreshLease(String city, long leaseMillis) {
+        Boolean acquired = withLeaseFile(city, (channel, holder, expiresAt) -> {
+            long now = ticker.currentTimeMillis();
+            if (holder != null && !holder.equals(nodeId) && expiresAt > now) {
+                return false;
+            }
+            writeLease(channel, nodeId + " " + (now + leaseMillis));
+            return true;
+        });
+        // Без аренды лучше обновить город самим, чем оставить кэш устаревшим
+        return acquired == null || acquired;
+    }
+
+    @Override
+    public void releaseRefreshLease(String city) {
+        withLeaseFile(city, (channel, holder, expiresAt) -> {
+            if (nodeId.equals(holder)) {
+                writeLease(channel, "");
+            }
+            return true;
+        });
+    }
+
+    private interface LeaseAction {
+        boolean apply(FileChannel channel, String holder, long expiresAt) throws IOException;
+    }
+
+    /**
+     * Выполняет действие над файлом аренды под межпроцессной блокировкой.
+     * Возвращает null при ошибке ввода-вывода.
+     */
+    private Boolean withLeaseFile(String city, LeaseAction action) {
+        Path leaseFile = file(city, ".lease").toAbsolutePath();
+        synchronized (LEASE_STRIPES[Math.floorMod(leaseFile.hashCode(), LEASE_STRIPES.length)]) {
+            try (FileChannel channel = FileChannel.open(leaseFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                channel.read(buffer, 0);
+                String[] lease = new String(buffer.array(), StandardCharsets.UTF_8).trim().split(" ");
+                if (lease.length == 2) {
+                    return action.apply(channel, lease[0], Long.parseLong(lease[1]));
+                }
+                return action.apply(channel, null, 0);
+            } catch (IOException | NumberFormatException e) {
+                log.error("Ошибка аренды кэша для города {}: {}", city, e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private static void writeLease(FileChannel channel, String content) throws IOException {
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)), 0);
+    }
+
+    private StoredEntry read(String city) {
+        try {
+            return mapper.readValue(Files.readAllBytes(file(city, ".json")), StoredEntry.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.error("Ошибка чтения общего кэша для города {}: {}", city, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean write(String city, StoredEntry stored) {
+        try {
+            Path tmp = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                Files.write(tmp, mapper.writeValueAsBytes(stored));
+                Files.move(tmp, file(city, ".json"),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("Ошибка записи общего кэша для города {}: {}", city, e.getMessage());
+            return false;
+        }
+    }
+
+    private Path file(String city, String suffix) {
+        return directory.resolve("city-" + URLEncoder.encode(city, StandardCharsets.UTF_8) + suffix);
+    }
+}
@@ -0,0 +1,85 @@
+package test.weather.sdk;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кэш в памяти процесса — используется по умолчанию.
+ */
+public class LocalCacheStore implements CacheStore {
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public CacheEntry get(String city) {
+        return entries.get(city);
+    }
+
+    @Override
+    public boolean put(String city, WeatherResponse response, long timestampMillis) {
+        // Обновление на месте без аллокаций; compute — только при промахе или
+        // если запись вытеснили между get и refresh
+        CacheEntry entry = entries.get(city);
+        if (entry != null) {
+            entry.refresh(response, timestampMillis);
+            if (entries.get(city) == entry) {
+                return true;
+            }
+        }
+        entries.compute(city, (key, current) -> {
+            if (current == null) {
+                return new CacheEntry(response, timestampMillis);
+            }
+            current.refresh(response, timestampMillis);
+            return current;
+        });
+        return true;
+    }
+
+    @Override
+    public boolean refreshIfPresent(String city, WeatherResponse response, long timestampMillis) {
+        CacheEntry entry = entries.get(city);
+        if (entry == null) {
+            return false;
+        }
+        // Если запись вытеснят между get и refresh, обновление уйдёт в уже удалённый объект,
+        // и город не вернётся в кэш — это и нужно
+        entry.refresh(response, timestampMillis);
+        return true;
+    }
+
+    @Override
+    public void reload(String city) {
+        // Локальный кэш и есть хранилище
+    }
+
+    @Override
+    public void remove(String city) {
+        entries.remove(city);
+    }
+
+    @Override
+    public Set<String> cities() {
+        return entries.keySet();
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean sharesLeases() {
+        return false;
+    }
+
+    @Override
+    public boolean tryAcquireRefreshLease(String city, long leaseMillis) {
+        // Единственный узел — обновлять всегда ему
+        return true;
+    }
+
+    @Override
+    public void releaseRefreshLease(String city) {
+    }
+}
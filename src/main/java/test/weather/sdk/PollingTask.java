@@ -4,7 +4,6 @@ import okhttp3.OkHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
 import java.util.ArrayList;
 
 /**
@@ -17,16 +16,18 @@ public class PollingTask implements Runnable {
     private final WeatherService service;
     private final OkHttpClient client;
     private final String apiKey;
-    private final Map<String, CacheEntry> cache;
+    private final CacheStore cache;
+    private final Ticker ticker;
     private volatile boolean running = true;
     private final long updateInterval;
 
     public PollingTask(WeatherService service, OkHttpClient client, String apiKey,
-                       Map<String, CacheEntry> cache, long updateInterval) {
+                       CacheStore cache, Ticker ticker, long updateInterval) {
         this.service = service;
         this.client = client;
         this.apiKey = apiKey;
         this.cache = cache;
+        this.ticker = ticker;
         this.updateInterval = updateInterval;
     }
 
@@ -35,11 +36,24 @@ public class PollingTask implements Runnable {
         while (running) {
             try {
                 // Создаем копию ключей для избежания ConcurrentModificationException
-                ArrayList<String> cities = new ArrayList<>(cache.keySet());
+                ArrayList<String> cities = new ArrayList<>(cache.cities());
                 for (String city : cities) {
+                    // Город в этом интервале обновляет только узел, взявший аренду
+                    if (!cache.tryAcquireRefreshLease(city, WeatherService.FETCH_LEASE_MILLIS)) {
+                        cache.reload(city);
+                        continue;
+                    }
                     try {
-                        WeatherResponse fresh = service.fetchWeatherFromAPI(client, city, apiKey);
-                        cache.put(city, new CacheEntry(fresh, System.currentTimeMillis() / 1000));
+                        WeatherResponse fresh = service.fetchWithLease(city,
+                                () -> service.fetchWeatherFromAPI(client, city, apiKey));
+                        if (cache.refreshIfPresent(city, fresh, ticker.currentTimeMillis())) {
+                            // Аренда не должна пережить запись, иначе остальные узлы будут ждать
+                            // истёкшие данные, пока аренда ещё действует
+                            cache.tryAcquireRefreshLease(city, Math.min(updateInterval, CacheEntry.TTL_MILLIS));
+                        } else {
+                            // Результат не попал в хранилище — не держим остальные узлы
+                            cache.releaseRefreshLease(city);
+                        }
                     } catch (WeatherException e) {
                         // Логируем ошибку, но продолжаем обработку других городов
                         log.error("Ошибка обновления в polling-режиме для города {}", city + ": " + e.getMessage());
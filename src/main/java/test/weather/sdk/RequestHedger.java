@@ -0,0 +1,84 @@
+package test.weather.sdk;
+
+import java.util.Arrays;
+
+/**
+ * Состояние хеджирования запросов: скользящее окно задержек и бюджет дополнительных запросов.
+ * Задержка перед повторным (хеджирующим) запросом равна заданному перцентилю недавних задержек,
+ * а бюджет не даёт хеджам превысить заданную долю от числа основных запросов.
+ */
+public class RequestHedger {
+    private static final int WINDOW_SIZE = 128;
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_TOKENS = 10.0;
+
+    private final double percentile;
+    private final double budgetRatio;
+    private final long[] samples = new long[WINDOW_SIZE];
+    private int sampleCount;
+    private int nextSample;
+    private double tokens;
+
+    /**
+     * @param percentile  перцентиль задержки (0-100), после которого отправляется хедж; 0 — хеджирование выключено
+     * @param budgetRatio доля хеджей от числа основных запросов (например, 0.1 — не больше 10%)
+     */
+    public RequestHedger(double percentile, double budgetRatio) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Перцентиль должен быть в диапазоне 0-100");
+        }
+        if (budgetRatio < 0) {
+            throw new IllegalArgumentException("Бюджет хеджирования не может быть отрицательным");
+        }
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+    }
+
+    public static RequestHedger disabled() {
+        return new RequestHedger(0, 0);
+    }
+
+    public boolean isEnabled() {
+        return percentile > 0 && budgetRatio > 0;
+    }
+
+    public synchronized void recordLatency(long nanos) {
+        samples[nextSample] = nanos;
+        nextSample = (nextSample + 1) % WINDOW_SIZE;
+        if (sampleCount < WINDOW_SIZE) {
+            sampleCount++;
+        }
+    }
+
+    /**
+     * Задержка перед отправкой хеджа в наносекундах или -1, если хеджирование
+     * выключено либо статистики ещё недостаточно.
+     */
+    public synchronized long hedgeDelayNanos() {
+        if (!isEnabled() || sampleCount < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sampleCount) - 1;
+        return sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+    }
+
+    /**
+     * Учитывает основной запрос к API — пополняет бюджет хеджей.
+     */
+    public synchronized void onPrimaryRequest() {
+        tokens = Math.min(MAX_TOKENS, tokens + budgetRatio);
+    }
+
+    /**
+     * Списывает один хедж из бюджета, если он доступен.
+     */
+    public synchronized boolean tryAcquireHedge() {
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+}
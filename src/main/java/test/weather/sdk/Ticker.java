@@ -0,0 +1,20 @@
+package test.weather.sdk;
+
+/**
+ * Источник времени для кэша. Позволяет подменить часы в тестах.
+ */
+@FunctionalInterface
+public interface Ticker {
+    long currentTimeMillis();
+
+    static Ticker system() {
+        return System::currentTimeMillis;
+    }
+
+    /**
+     * Грубые часы, обновляемые фоновым потоком — чтение сводится к volatile-загрузке.
+     */
+    static Ticker coarse() {
+        return CoarseTicker.INSTANCE;
+    }
+}
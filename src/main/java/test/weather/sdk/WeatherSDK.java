@@ -1,6 +1,7 @@
 package test.weather.sdk;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Главный класс SDK — потокобезопасный синглтон на основе API-ключа.
@@ -41,6 +42,10 @@ public class WeatherSDK implements AutoCloseable {
         return service.getWeather(city);
     }
 
+    public WeatherResponse getWeather(String city, long timeout, TimeUnit unit) throws WeatherException {
+        return service.getWeather(city, timeout, unit);
+    }
+
     @Override
     public void close() {
         service.close();
@@ -6,9 +6,18 @@ import io.github.cdimascio.dotenv.Dotenv;
 import okhttp3.*;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Основной сервис погоды — выполняет запросы, кэширует, обновляет.
@@ -16,6 +25,16 @@ import java.util.concurrent.TimeUnit;
 public class WeatherService {
     private static final String DEFAULT_API_URL;
     private static final long UPDATE_INTERVAL;
+    private static final double HEDGE_PERCENTILE;
+    private static final double HEDGE_BUDGET;
+    private static final String CACHE_DIR;
+    // Короткая аренда на время запроса: пока запрос идёт, она продлевается,
+    // а аренда упавшего узла истекает быстро
+    static final long FETCH_LEASE_MILLIS = 3_000;
+    private static final long LEASE_RENEWAL_MILLIS = 1_000;
+    // Предел ожидания узла-арендатора для вызова без дедлайна, после которого узел запрашивает API сам
+    private static final long MAX_PEER_WAIT_MILLIS = 3 * FETCH_LEASE_MILLIS;
+    private static final long PEER_POLL_MILLIS = 50;
 
     static {
         Dotenv dotenv = Dotenv.load();
@@ -23,14 +42,24 @@ public class WeatherService {
                 "https://api.openweathermap.org/data/2.5/weather?q=%s&appid=%s&units=metric");
         String intervalStr = dotenv.get("UPDATE_INTERVAL", "600000");
         UPDATE_INTERVAL = Long.parseLong(intervalStr);
+        HEDGE_PERCENTILE = Double.parseDouble(dotenv.get("HEDGE_PERCENTILE", "0"));
+        HEDGE_BUDGET = Double.parseDouble(dotenv.get("HEDGE_BUDGET", "0.1"));
+        CACHE_DIR = dotenv.get("CACHE_DIR", "");
     }
 
     private final String apiKey;
     private final String apiUrl;
     private final long updateInterval;
-    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final CacheStore cache;
     private final OkHttpClient client;
     private final ObjectMapper mapper = new ObjectMapper();
+    private final RequestHedger hedger;
+    private final Ticker ticker;
+    private final ScheduledExecutorService leaseRenewal = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "WeatherSDK-LeaseRenewal");
+        thread.setDaemon(true);
+        return thread;
+    });
     private Thread pollingThread;
     private PollingTask pollingTask;
 
@@ -43,10 +72,31 @@ public class WeatherService {
     }
 
     public WeatherService(String apiKey, Mode mode, String apiUrl, long updateInterval) {
+        this(apiKey, mode, apiUrl, updateInterval, new RequestHedger(HEDGE_PERCENTILE, HEDGE_BUDGET));
+    }
+
+    public WeatherService(String apiKey, Mode mode, String apiUrl, long updateInterval, RequestHedger hedger) {
+        this(apiKey, mode, apiUrl, updateInterval, hedger, Ticker.coarse());
+    }
+
+    public WeatherService(String apiKey, Mode mode, String apiUrl, long updateInterval,
+                          RequestHedger hedger, Ticker ticker) {
+        this(apiKey, mode, apiUrl, updateInterval, hedger, ticker, defaultCacheStore(ticker));
+    }
+
+    public WeatherService(String apiKey, Mode mode, String apiUrl, long updateInterval,
+                          RequestHedger hedger, Ticker ticker, CacheStore cache) {
         this.apiKey = apiKey;
         this.apiUrl = apiUrl;
         this.updateInterval = updateInterval;
+        this.hedger = hedger;
+        this.ticker = ticker;
+        this.cache = cache;
+        // Все запросы идут на один хост, поэтому снимаем ограничение в 5 асинхронных запросов на хост
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(dispatcher.getMaxRequests());
         this.client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
                 .connectTimeout(10, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(10, TimeUnit.SECONDS)
@@ -57,34 +107,140 @@ public class WeatherService {
         }
     }
 
+    private static CacheStore defaultCacheStore(Ticker ticker) {
+        if (CACHE_DIR.isBlank()) {
+            return new LocalCacheStore();
+        }
+        return new FileCacheStore(Paths.get(CACHE_DIR), ticker);
+    }
+
     private void startPolling() {
-        pollingTask = new PollingTask(this, client, apiKey, cache, updateInterval);
+        pollingTask = new PollingTask(this, client, apiKey, cache, ticker, updateInterval);
         pollingThread = new Thread(pollingTask, "WeatherSDK-PollingThread");
         pollingThread.setDaemon(true);
         pollingThread.start();
     }
 
     public WeatherResponse getWeather(String city) throws WeatherException {
+        return getWeather(city, -1);
+    }
+
+    /**
+     * Получение погоды с дедлайном на весь вызов (включая возможный хедж-запрос).
+     */
+    public WeatherResponse getWeather(String city, long timeout, TimeUnit unit) throws WeatherException {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Дедлайн должен быть положительным");
+        }
+        return getWeather(city, unit.toNanos(timeout));
+    }
+
+    private WeatherResponse getWeather(String city, long timeoutNanos) throws WeatherException {
         if (city == null || city.trim().isEmpty()) {
             throw new WeatherException("Название города не может быть пустым");
         }
         String trimmedCity = city.trim();
+        boolean hasDeadline = timeoutNanos >= 0;
+        long deadline = hasDeadline ? System.nanoTime() + timeoutNanos : 0;
 
         CacheEntry entry = cache.get(trimmedCity);
-        if (entry != null && !entry.isExpired()) {
+        if (entry != null && !entry.isExpired(ticker.currentTimeMillis())) {
             return entry.response;
         }
 
-        WeatherResponse fresh = fetchWeatherFromAPI(client, trimmedCity, apiKey);
-        cache.put(trimmedCity, new CacheEntry(fresh, System.currentTimeMillis() / 1000));
+        if (!cache.tryAcquireRefreshLease(trimmedCity, FETCH_LEASE_MILLIS)) {
+            CacheEntry peerEntry = awaitPeerRefresh(trimmedCity, hasDeadline, deadline);
+            if (peerEntry != null) {
+                return peerEntry.response;
+            }
+        }
+
+        long remainingNanos = hasDeadline ? deadline - System.nanoTime() : -1;
+        if (hasDeadline && remainingNanos <= 0) {
+            throw new WeatherException("Превышен дедлайн запроса к API для города " + trimmedCity);
+        }
+        WeatherResponse fresh = fetchWithLease(trimmedCity, () -> (remainingNanos < 0 && !hedger.isEnabled())
+                ? fetchWeatherFromAPI(client, trimmedCity, apiKey)
+                : fetchHedged(trimmedCity, remainingNanos));
+        if (!cache.put(trimmedCity, fresh, ticker.currentTimeMillis())) {
+            cache.releaseRefreshLease(trimmedCity);
+        }
         evictOldEntries();
         return fresh;
     }
 
-    void updateCacheTimestamp(String city, long timestamp) {
+    /**
+     * Ожидание, пока узел-арендатор обновит город в общем хранилище. Ожидание прекращается,
+     * как только аренда освободилась или истекла (тогда её берёт этот узел и возвращается null),
+     * и не позже {@link #MAX_PEER_WAIT_MILLIS}, а при дедлайне — половины оставшегося времени,
+     * чтобы успеть запросить API самому.
+     */
+    private CacheEntry awaitPeerRefresh(String city, boolean hasDeadline, long deadline) throws WeatherException {
+        long waitNanos = TimeUnit.MILLISECONDS.toNanos(MAX_PEER_WAIT_MILLIS);
+        if (hasDeadline) {
+            waitNanos = Math.min(waitNanos, (deadline - System.nanoTime()) / 2);
+        }
+        long waitUntil = System.nanoTime() + waitNanos;
+        while (System.nanoTime() - waitUntil < 0) {
+            try {
+                Thread.sleep(PEER_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WeatherException("Ожидание обновления кэша прервано", e);
+            }
+            CacheEntry entry = cache.get(city);
+            if (entry != null && !entry.isExpired(ticker.currentTimeMillis())) {
+                return entry;
+            }
+            if (cache.tryAcquireRefreshLease(city, FETCH_LEASE_MILLIS)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    interface Fetch {
+        WeatherResponse get() throws WeatherException;
+    }
+
+    /**
+     * Запрос к API под арендой города: пока запрос идёт, аренда продлевается,
+     * а при ошибке освобождается, чтобы другие узлы не ждали её истечения.
+     */
+    WeatherResponse fetchWithLease(String city, Fetch fetch) throws WeatherException {
+        if (!cache.sharesLeases()) {
+            return fetch.get();
+        }
+        // Флаг и продление под одним монитором: продление, уже начатое к моменту
+        // завершения запроса, не сможет взять аренду заново после её освобождения
+        AtomicBoolean done = new AtomicBoolean();
+        ScheduledFuture<?> renewal = leaseRenewal.scheduleAtFixedRate(() -> {
+            synchronized (done) {
+                if (!done.get()) {
+                    cache.tryAcquireRefreshLease(city, FETCH_LEASE_MILLIS);
+                }
+            }
+        }, LEASE_RENEWAL_MILLIS, LEASE_RENEWAL_MILLIS, TimeUnit.MILLISECONDS);
+        boolean fetched = false;
+        try {
+            WeatherResponse response = fetch.get();
+            fetched = true;
+            return response;
+        } finally {
+            synchronized (done) {
+                done.set(true);
+            }
+            renewal.cancel(false);
+            if (!fetched) {
+                cache.releaseRefreshLease(city);
+            }
+        }
+    }
+
+    void updateCacheTimestamp(String city, long timestampMillis) {
         CacheEntry entry = cache.get(city);
         if (entry != null) {
-            cache.put(city, new CacheEntry(entry.response, timestamp));
+            entry.touch(timestampMillis);
         }
     }
 
@@ -97,82 +253,199 @@ public class WeatherService {
     }
 
     private void evictOldEntries() {
-        cache.entrySet().removeIf(e -> e.getValue().isExpired());
+        long now = ticker.currentTimeMillis();
+        String oldestCity = null;
+        long oldestTimestamp = Long.MAX_VALUE;
+        for (String city : cache.cities()) {
+            CacheEntry entry = cache.get(city);
+            if (entry == null || entry.isExpired(now)) {
+                cache.remove(city);
+            } else if (entry.timestampMillis < oldestTimestamp) {
+                oldestCity = city;
+                oldestTimestamp = entry.timestampMillis;
+            }
+        }
 
-        if (cache.size() > 10) {
-            cache.entrySet().stream()
-                    .min((a, b) -> Long.compare(a.getValue().timestampSeconds, b.getValue().timestampSeconds))
-                    .ifPresent(e -> cache.remove(e.getKey()));
+        if (cache.size() > 10 && oldestCity != null) {
+            cache.remove(oldestCity);
         }
     }
 
     public WeatherResponse fetchWeatherFromAPI(OkHttpClient client, String city, String key) throws WeatherException {
-        String url = String.format(apiUrl, city, key);
-        Request request = new Request.Builder().url(url).build();
+        Request request = buildRequest(city, key);
+        hedger.onPrimaryRequest();
+        long start = System.nanoTime();
 
         try (Response response = client.newCall(request).execute()) {
-            if (response.body() == null) {
-                throw new WeatherException("Пустое тело ответа от API");
-            }
-
-            String responseBody = response.body().string();
-            JsonNode root = mapper.readTree(responseBody);
+            return parseResponse(response, city);
+        } catch (IOException e) {
+            throw new WeatherException("Ошибка сети при запросе к API: " + e.getMessage(), e);
+        } finally {
+            hedger.recordLatency(System.nanoTime() - start);
+        }
+    }
 
-            if (root.has("cod")) {
-                int code = root.get("cod").asInt();
-                if (code != 200) {
-                    String message = root.has("message") ?
-                            root.get("message").asText() : "Неизвестная ошибка API";
-                    throw new WeatherException("OpenWeather API error [" + code + "]: " + message);
+    /**
+     * Асинхронный запрос с дедлайном и хеджированием: если основной запрос не ответил
+     * за перцентильную задержку, отправляется второй, берётся первый успешный ответ,
+     * а оставшийся запрос отменяется. В статистику задержек попадает время всего вызова
+     * от старта основного запроса; для отменённого вызова это нижняя оценка его задержки.
+     */
+    private WeatherResponse fetchHedged(String city, long timeoutNanos) throws WeatherException {
+        long start = System.nanoTime();
+        HedgedCall hedgedCall = new HedgedCall(buildRequest(city, apiKey), city);
+        hedger.onPrimaryRequest();
+        hedgedCall.launch();
+        try {
+            long hedgeDelay = hedger.hedgeDelayNanos();
+            if (hedgeDelay >= 0 && (timeoutNanos < 0 || hedgeDelay < timeoutNanos)) {
+                try {
+                    return hedgedCall.result.get(hedgeDelay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (!hedgedCall.result.isDone() && hedger.tryAcquireHedge()) {
+                        hedgedCall.launch();
+                    }
                 }
             }
+            if (timeoutNanos < 0) {
+                return hedgedCall.result.get();
+            }
+            long remaining = timeoutNanos - (System.nanoTime() - start);
+            return hedgedCall.result.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new WeatherException("Превышен дедлайн запроса к API для города " + city);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof WeatherException weatherException) {
+                throw weatherException;
+            }
+            throw new WeatherException("Ошибка при запросе к API: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WeatherException("Запрос к API прерван", e);
+        } finally {
+            hedgedCall.cancelAll();
+            hedger.recordLatency(System.nanoTime() - start);
+        }
+    }
 
-            WeatherResponse wr = new WeatherResponse();
-            wr.name = root.has("name") ? root.get("name").asText() : city;
+    private Request buildRequest(String city, String key) {
+        String url = String.format(apiUrl, city, key);
+        return new Request.Builder().url(url).build();
+    }
 
-            JsonNode weatherArr = root.get("weather");
-            if (weatherArr != null && !weatherArr.isEmpty()) {
-                wr.weather = new WeatherResponse.Weather();
-                wr.weather.main = weatherArr.get(0).has("main") ?
-                        weatherArr.get(0).get("main").asText() : "Unknown";
-                wr.weather.description = weatherArr.get(0).has("description") ?
-                        weatherArr.get(0).get("description").asText() : "No description";
-            }
+    private WeatherResponse parseResponse(Response response, String city) throws WeatherException, IOException {
+        if (response.body() == null) {
+            throw new WeatherException("Пустое тело ответа от API");
+        }
 
-            JsonNode main = root.get("main");
-            if (main != null) {
-                wr.temperature = new WeatherResponse.Temperature();
-                wr.temperature.temp = main.has("temp") ? main.get("temp").asDouble() : 0.0;
-                wr.temperature.feels_like = main.has("feels_like") ? main.get("feels_like").asDouble() : 0.0;
-                wr.temperature.humidity = main.has("humidity") ? main.get("humidity").asInt() : 0;
+        String responseBody = response.body().string();
+        JsonNode root = mapper.readTree(responseBody);
+
+        if (root.has("cod")) {
+            int code = root.get("cod").asInt();
+            if (code != 200) {
+                String message = root.has("message") ?
+                        root.get("message").asText() : "Неизвестная ошибка API";
+                throw new WeatherException("OpenWeather API error [" + code + "]: " + message);
             }
+        }
 
-            wr.visibility = root.has("visibility") ? root.get("visibility").asInt() : 10000;
+        WeatherResponse wr = new WeatherResponse();
+        wr.name = root.has("name") ? root.get("name").asText() : city;
 
-            JsonNode wind = root.get("wind");
-            if (wind != null) {
-                wr.wind = new WeatherResponse.Wind();
-                wr.wind.speed = wind.has("speed") ? wind.get("speed").asDouble() : 0.0;
-            }
+        JsonNode weatherArr = root.get("weather");
+        if (weatherArr != null && !weatherArr.isEmpty()) {
+            wr.weather = new WeatherResponse.Weather();
+            wr.weather.main = weatherArr.get(0).has("main") ?
+                    weatherArr.get(0).get("main").asText() : "Unknown";
+            wr.weather.description = weatherArr.get(0).has("description") ?
+                    weatherArr.get(0).get("description").asText() : "No description";
+        }
 
-            wr.datetime = root.has("dt") ? root.get("dt").asLong() : System.currentTimeMillis() / 1000;
+        JsonNode main = root.get("main");
+        if (main != null) {
+            wr.temperature = new WeatherResponse.Temperature();
+            wr.temperature.temp = main.has("temp") ? main.get("temp").asDouble() : 0.0;
+            wr.temperature.feels_like = main.has("feels_like") ? main.get("feels_like").asDouble() : 0.0;
+            wr.temperature.humidity = main.has("humidity") ? main.get("humidity").asInt() : 0;
+        }
 
-            JsonNode sys = root.get("sys");
-            if (sys != null) {
-                wr.sys = new WeatherResponse.Sys();
-                wr.sys.sunrise = sys.has("sunrise") ? sys.get("sunrise").asLong() : 0L;
-                wr.sys.sunset = sys.has("sunset") ? sys.get("sunset").asLong() : 0L;
-            }
+        wr.visibility = root.has("visibility") ? root.get("visibility").asInt() : 10000;
 
-            wr.timezone = root.has("timezone") ? root.get("timezone").asInt() : 0;
+        JsonNode wind = root.get("wind");
+        if (wind != null) {
+            wr.wind = new WeatherResponse.Wind();
+            wr.wind.speed = wind.has("speed") ? wind.get("speed").asDouble() : 0.0;
+        }
 
-            return wr;
-        } catch (IOException e) {
-            throw new WeatherException("Ошибка сети при запросе к API: " + e.getMessage(), e);
+        wr.datetime = root.has("dt") ? root.get("dt").asLong() : System.currentTimeMillis() / 1000;
+
+        JsonNode sys = root.get("sys");
+        if (sys != null) {
+            wr.sys = new WeatherResponse.Sys();
+            wr.sys.sunrise = sys.has("sunrise") ? sys.get("sunrise").asLong() : 0L;
+            wr.sys.sunset = sys.has("sunset") ? sys.get("sunset").asLong() : 0L;
+        }
+
+        wr.timezone = root.has("timezone") ? root.get("timezone").asInt() : 0;
+
+        return wr;
+    }
+
+    /**
+     * Группа запросов по одному городу (основной + хедж). Результат завершается первым
+     * успешным ответом либо ошибкой, когда все отправленные запросы завершились неудачно.
+     */
+    private final class HedgedCall {
+        final CompletableFuture<WeatherResponse> result = new CompletableFuture<>();
+        private final List<Call> calls = new CopyOnWriteArrayList<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Request request;
+        private final String city;
+
+        HedgedCall(Request request, String city) {
+            this.request = request;
+            this.city = city;
+        }
+
+        void launch() {
+            Call call = client.newCall(request);
+            calls.add(call);
+            pending.incrementAndGet();
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (response) {
+                        result.complete(parseResponse(response, city));
+                    } catch (WeatherException e) {
+                        fail(e);
+                    } catch (IOException e) {
+                        fail(new WeatherException("Ошибка сети при запросе к API: " + e.getMessage(), e));
+                    }
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    fail(new WeatherException("Ошибка сети при запросе к API: " + e.getMessage(), e));
+                }
+            });
+        }
+
+        private void fail(WeatherException e) {
+            if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        void cancelAll() {
+            for (Call call : calls) {
+                call.cancel();
+            }
         }
     }
 
     public void close() {
+        leaseRenewal.shutdownNow();
         if (pollingTask != null) {
             pollingTask.stop();
         }
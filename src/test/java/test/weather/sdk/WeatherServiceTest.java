@@ -1,9 +1,19 @@
 package test.weather.sdk;
 
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -179,6 +189,293 @@ class WeatherServiceTest {
                 "City10 должен браться из кэша (не вызывает новый запрос)");
     }
 
+    @Test
+    void getWeather_deadlineExceeded_throwsException() throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.VALID_RESPONSE)
+                .addHeader("Content-Type", "application/json")
+                .setHeadersDelay(2, TimeUnit.SECONDS));
+
+        service = new WeatherService(API_KEY, Mode.ON_DEMAND, baseUrl + "?q=%s&appid=%s&units=metric");
+
+        long start = System.currentTimeMillis();
+        WeatherException exception = assertThrows(WeatherException.class, () -> {
+            service.getWeather("London", 200, TimeUnit.MILLISECONDS);
+        });
+        assertTrue(exception.getMessage().contains("дедлайн"));
+        assertTrue(System.currentTimeMillis() - start < 1500, "Дедлайн должен прервать ожидание ответа");
+        assertEquals(0, service.getCacheSize());
+    }
+
+    @Test
+    void getWeather_slowPrimary_hedgedRequestWins() throws Exception {
+        String url = baseUrl + "?q=%s&appid=%s&units=metric";
+        service = new WeatherService(API_KEY, Mode.ON_DEMAND, url, 600000, new RequestHedger(50, 1.0));
+
+        // Набираем статистику задержек, чтобы хеджер мог вычислить перцентиль
+        for (int i = 0; i < 20; i++) {
+            server.enqueue(new MockResponse()
+                    .setBody(Fixtures.VALID_RESPONSE)
+                    .addHeader("Content-Type", "application/json"));
+            service.getWeather("City" + i);
+        }
+
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.VALID_RESPONSE)
+                .addHeader("Content-Type", "application/json")
+                .setHeadersDelay(3, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.ANOTHER_RESPONSE)
+                .addHeader("Content-Type", "application/json"));
+
+        long start = System.currentTimeMillis();
+        WeatherResponse response = service.getWeather("Moscow");
+
+        assertEquals("Moscow", response.name, "Ожидается ответ от хедж-запроса");
+        assertTrue(System.currentTimeMillis() - start < 2000, "Хедж должен ответить раньше медленного запроса");
+        assertEquals(22, server.getRequestCount());
+    }
+
+    @Test
+    void requestHedger_budgetLimitsHedges() {
+        RequestHedger hedger = new RequestHedger(95, 0.1);
+        assertFalse(hedger.tryAcquireHedge(), "Без основных запросов бюджет пуст");
+
+        for (int i = 0; i < 100; i++) {
+            hedger.onPrimaryRequest();
+        }
+        int hedges = 0;
+        while (hedger.tryAcquireHedge()) {
+            hedges++;
+        }
+        assertTrue(hedges <= 10, "Хеджей не больше 10% от основных запросов");
+        assertFalse(RequestHedger.disabled().isEnabled());
+    }
+
+    @Test
+    void getWeather_manualTicker_expiresDeterministically() throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.VALID_RESPONSE)
+                .addHeader("Content-Type", "application/json"));
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.ANOTHER_RESPONSE)
+                .addHeader("Content-Type", "application/json"));
+
+        AtomicLong now = new AtomicLong(1_000_000);
+        service = new WeatherService(API_KEY, Mode.ON_DEMAND, baseUrl + "?q=%s&appid=%s&units=metric",
+                600000, RequestHedger.disabled(), now::get);
+
+        service.getWeather("London");
+        now.addAndGet(CacheEntry.TTL_MILLIS - 1);
+        service.getWeather("London");
+        assertEquals(1, server.getRequestCount(), "Запись ещё не истекла");
+
+        now.addAndGet(1);
+        WeatherResponse response = service.getWeather("London");
+        assertEquals(2, server.getRequestCount(), "Запись истекла ровно по TTL");
+        assertEquals("Moscow", response.name);
+    }
+
+    @Test
+    void getWeather_cacheHit_doesNotAllocate() throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.VALID_RESPONSE)
+                .addHeader("Content-Type", "application/json"));
+
+        service = new WeatherService(API_KEY, Mode.ON_DEMAND, baseUrl + "?q=%s&appid=%s&units=metric");
+        service.getWeather("London");
+
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int threads = 32;
+        int iterations = 200_000;
+        AtomicLong allocatedBytes = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    // Прогрев, чтобы JIT скомпилировал путь попадания в кэш
+                    for (int i = 0; i < iterations; i++) {
+                        service.getWeather("London");
+                    }
+                    long before = threadBean.getCurrentThreadAllocatedBytes();
+                    for (int i = 0; i < iterations; i++) {
+                        service.getWeather("London");
+                    }
+                    allocatedBytes.addAndGet(threadBean.getCurrentThreadAllocatedBytes() - before);
+                } catch (WeatherException e) {
+                    allocatedBytes.addAndGet(Long.MAX_VALUE / threads);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS), "Потоки не завершились за 30 секунд");
+        assertEquals(1, server.getRequestCount());
+        double bytesPerHit = (double) allocatedBytes.get() / ((long) threads * iterations);
+        assertTrue(bytesPerHit < 0.01, "Попадание в кэш не должно аллоцировать, байт на вызов: " + bytesPerHit);
+    }
+
+    @Test
+    void localCacheStore_refreshIfPresent_doesNotReinsertEvictedCity() {
+        LocalCacheStore store = new LocalCacheStore();
+        WeatherResponse first = new WeatherResponse();
+        WeatherResponse second = new WeatherResponse();
+
+        assertFalse(store.refreshIfPresent("London", first, 1000));
+        assertEquals(0, store.size());
+
+        store.put("London", first, 1000);
+        CacheEntry entry = store.get("London");
+        assertTrue(store.refreshIfPresent("London", second, 2000));
+        assertSame(entry, store.get("London"), "Запись обновляется на месте");
+        assertSame(second, entry.response);
+        assertEquals(2000, entry.timestampMillis);
+    }
+
+    @Test
+    void fileCacheStore_sharesEntriesBetweenNodes(@TempDir Path cacheDir) throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.VALID_RESPONSE)
+                .addHeader("Content-Type", "application/json"));
+
+        String url = baseUrl + "?q=%s&appid=%s&units=metric";
+        Ticker ticker = Ticker.system();
+        service = new WeatherService(API_KEY, Mode.ON_DEMAND, url, 600000, RequestHedger.disabled(),
+                ticker, new FileCacheStore(cacheDir, ticker));
+        WeatherService otherNode = new WeatherService(API_KEY, Mode.ON_DEMAND, url, 600000,
+                RequestHedger.disabled(), ticker, new FileCacheStore(cacheDir, ticker));
+        try {
+            service.getWeather("London");
+            WeatherResponse response = otherNode.getWeather("London");
+
+            assertEquals("London", response.name);
+            assertEquals(282.55, response.temperature.temp);
+            assertEquals(1, server.getRequestCount(), "Второй узел должен прочитать результат первого");
+        } finally {
+            otherNode.close();
+        }
+    }
+
+    @Test
+    void fileCacheStore_pollingRefreshesCityOncePerInterval(@TempDir Path cacheDir) throws Exception {
+        // Каждый ответ API помечен номером запроса в поле temp
+        AtomicInteger requestNumber = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setBody(Fixtures.VALID_RESPONSE.replace("282.55", requestNumber.incrementAndGet() + ".0"))
+                        .addHeader("Content-Type", "application/json");
+            }
+        });
+
+        String url = baseUrl + "?q=%s&appid=%s&units=metric";
+        Ticker ticker = Ticker.system();
+        long interval = 300;
+        service = new WeatherService(API_KEY, Mode.POLLING, url, interval, RequestHedger.disabled(),
+                ticker, new FileCacheStore(cacheDir, ticker));
+        WeatherService otherNode = new WeatherService(API_KEY, Mode.POLLING, url, interval,
+                RequestHedger.disabled(), ticker, new FileCacheStore(cacheDir, ticker));
+        try {
+            service.getWeather("London");
+            otherNode.getWeather("London");
+            assertEquals(1, server.getRequestCount(), "Второй узел должен прочитать результат первого");
+
+            Thread.sleep(3000);
+            int refreshes = server.getRequestCount() - 1;
+            // Один узел делает около 10 обновлений за 3 секунды, два независимых — около 20
+            assertTrue(refreshes >= 2, "Ожидаются фоновые обновления, получено " + refreshes);
+            assertTrue(refreshes <= 14, "Обновлений не должно становиться больше с числом узлов, получено " + refreshes);
+
+            // Одинаковый номер ответа на обоих узлах: один узел обновил город, второй прочитал его результат
+            boolean shared = waitForCondition(() -> {
+                try {
+                    double temp = service.getWeather("London").temperature.temp;
+                    return temp > 1 && temp == otherNode.getWeather("London").temperature.temp;
+                } catch (WeatherException e) {
+                    return false;
+                }
+            }, 3000, 50);
+            assertTrue(shared, "Узел без аренды должен видеть обновление узла-арендатора");
+        } finally {
+            otherNode.close();
+        }
+    }
+
+    @Test
+    void fileCacheStore_refreshLeaseHasSingleHolder(@TempDir Path cacheDir) {
+        AtomicLong now = new AtomicLong(1_000_000);
+        FileCacheStore first = new FileCacheStore(cacheDir, now::get);
+        FileCacheStore second = new FileCacheStore(cacheDir, now::get);
+
+        assertTrue(first.tryAcquireRefreshLease("London", 1000));
+        assertFalse(second.tryAcquireRefreshLease("London", 1000), "Аренда уже занята другим узлом");
+        assertTrue(first.tryAcquireRefreshLease("London", 1000), "Владелец может продлить аренду");
+        assertTrue(second.tryAcquireRefreshLease("Moscow", 1000), "Аренды городов независимы");
+
+        now.addAndGet(1000);
+        assertTrue(second.tryAcquireRefreshLease("London", 1000), "Истёкшую аренду может взять другой узел");
+        assertFalse(first.tryAcquireRefreshLease("London", 1000));
+
+        first.releaseRefreshLease("London");
+        assertFalse(first.tryAcquireRefreshLease("London", 1000), "Чужую аренду освободить нельзя");
+        second.releaseRefreshLease("London");
+        assertTrue(first.tryAcquireRefreshLease("London", 1000), "Освобождённую аренду можно взять сразу");
+    }
+
+    @Test
+    void fileCacheStore_waiterTakesOverReleasedLease(@TempDir Path cacheDir) throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.VALID_RESPONSE)
+                .addHeader("Content-Type", "application/json"));
+
+        Ticker ticker = Ticker.system();
+        FileCacheStore otherNode = new FileCacheStore(cacheDir, ticker);
+        assertTrue(otherNode.tryAcquireRefreshLease("London", 60_000));
+        service = new WeatherService(API_KEY, Mode.ON_DEMAND, baseUrl + "?q=%s&appid=%s&units=metric",
+                600000, RequestHedger.disabled(), ticker, new FileCacheStore(cacheDir, ticker));
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Например, запрос на другом узле завершился ошибкой
+            otherNode.releaseRefreshLease("London");
+        });
+        releaser.start();
+
+        long start = System.currentTimeMillis();
+        WeatherResponse response = service.getWeather("London");
+        releaser.join();
+
+        assertEquals("London", response.name);
+        assertTrue(System.currentTimeMillis() - start < 2000, "Ожидание должно закончиться после освобождения аренды");
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void fileCacheStore_peerWaitRespectsDeadline(@TempDir Path cacheDir) throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody(Fixtures.VALID_RESPONSE)
+                .addHeader("Content-Type", "application/json")
+                .setHeadersDelay(2, TimeUnit.SECONDS));
+
+        Ticker ticker = Ticker.system();
+        assertTrue(new FileCacheStore(cacheDir, ticker).tryAcquireRefreshLease("London", 60_000));
+        service = new WeatherService(API_KEY, Mode.ON_DEMAND, baseUrl + "?q=%s&appid=%s&units=metric",
+                600000, RequestHedger.disabled(), ticker, new FileCacheStore(cacheDir, ticker));
+
+        long start = System.currentTimeMillis();
+        assertThrows(WeatherException.class, () -> service.getWeather("London", 600, TimeUnit.MILLISECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed < 900, "Ожидание и запрос должны уложиться в один дедлайн, прошло " + elapsed + " мс");
+    }
+
     private boolean waitForCondition(BooleanSupplier condition, long timeoutMs, long intervalMs) {
         long startTime = System.currentTimeMillis();
         while (!condition.getAsBoolean()) {
@@ -196,7 +493,7 @@ class WeatherServiceTest {
     }
 
     private void forceExpireCacheEntry(String city) {
-        long expiredTimestamp = (System.currentTimeMillis() / 1000) - 601;
+        long expiredTimestamp = System.currentTimeMillis() - 601_000;
         service.updateCacheTimestamp(city, expiredTimestamp);
     }
 